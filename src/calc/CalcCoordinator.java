@@ -0,0 +1,336 @@
+package calc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.System.err;
+import static java.lang.System.out;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/*
+ *   Shards batches of expressions over several WebCalcServer workers
+ *
+ *   Every expression is always sent to the same worker (rendezvous hashing),
+ *   so each worker's result cache stays hot. If a worker can't be reached and
+ *   fails a health check it is dropped, and only its expressions move to the
+ *   remaining workers. Results are
+ *   returned in the same order as the expressions.
+ *
+ *   Run with worker addresses to evaluate stdin, one expression per line:
+ *       java calc.CalcCoordinator localhost:8081 otherhost:8080
+ *   or with a number to start that many local workers and measure throughput:
+ *       java calc.CalcCoordinator 4
+ */
+class CalcCoordinator implements AutoCloseable {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args[0].contains(":")) {
+            try (CalcCoordinator coordinator = new CalcCoordinator(Arrays.asList(args))) {
+                coordinator.evalStdin();
+            }
+        } else {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    final static String NO_WORKERS = "No workers available";
+    final static String LINE_BREAK = "Line break in expression";
+    final static int FIRST_LOCAL_PORT = 8081;
+    final static Duration TIMEOUT = Duration.ofSeconds(30);
+    final static Duration HEALTH_TIMEOUT = Duration.ofSeconds(5);
+    final static int MAX_REQUEST = 10_000;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .build();
+    private final List<String> workers = new CopyOnWriteArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+
+    // Workers are given as "host:port"
+    CalcCoordinator(List<String> workers) {
+        this.workers.addAll(workers);
+    }
+
+    // Start worker processes on localhost, ports FIRST_LOCAL_PORT and up
+    static CalcCoordinator startLocal(int count) throws IOException {
+        List<String> addresses = new ArrayList<>();
+        List<Process> started = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int port = FIRST_LOCAL_PORT + i;
+            started.add(startWorker(port));
+            addresses.add("localhost:" + port);
+        }
+        CalcCoordinator coordinator = new CalcCoordinator(addresses);
+        coordinator.processes.addAll(started);
+        coordinator.awaitWorkers();
+        return coordinator;
+    }
+
+    static Process startWorker(int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "calc.WebCalcServer", Integer.toString(port))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+    }
+
+    List<String> getWorkers() {
+        return new ArrayList<>(workers);
+    }
+
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+
+    // ---------- Evaluation -----------------
+
+    // Returns one result (or error message) per expression, in order.
+    // Expressions with line breaks would break the line based protocol,
+    // they are not sent and get an error message as result.
+    List<String> evalBatch(List<String> exprs) {
+        String[] results = new String[exprs.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < exprs.size(); i++) {
+            if (hasLineBreak(exprs.get(i))) {
+                results[i] = "Error: " + LINE_BREAK;
+            } else {
+                pending.add(i);
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            pending = dispatch(exprs, pending, results);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    boolean hasLineBreak(String expr) {
+        return expr.indexOf('\n') >= 0 || expr.indexOf('\r') >= 0;
+    }
+
+    // Send pending expressions to their workers. Returns the expressions of
+    // workers that could not be reached (and don't answer a health check),
+    // to be sent again to the remaining ones. Any other failure fails the batch.
+    List<Integer> dispatch(List<String> exprs, List<Integer> pending, String[] results) {
+
+        if (workers.isEmpty()) {
+            throw new IllegalStateException(NO_WORKERS);
+        }
+
+        Map<String, List<Integer>> shards = shard(exprs, pending);
+        Map<String, CompletableFuture<List<String>>> responses = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> shard : shards.entrySet()) {
+            responses.put(shard.getKey(), send(shard.getKey(), exprs, shard.getValue()));
+        }
+
+        List<Integer> failed = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> shard : shards.entrySet()) {
+            try {
+                collect(shard.getValue(), responses.get(shard.getKey()).join(), results);
+            } catch (CompletionException e) {
+                // A bad response, or a worker that still answers (e.g. a timeout
+                // on a busy worker), fails the batch instead of moving it
+                if (!(e.getCause() instanceof IOException) || isAlive(shard.getKey())) {
+                    throw new IllegalStateException("Worker " + shard.getKey() + ": " + e.getCause());
+                }
+                err.println("Worker " + shard.getKey() + " failed, rebalancing: " + e.getCause());
+                workers.remove(shard.getKey());
+                failed.addAll(shard.getValue());
+            }
+        }
+
+        return failed;
+    }
+
+    Map<String, List<Integer>> shard(List<String> exprs, List<Integer> indices) {
+        Map<String, List<Integer>> shards = new LinkedHashMap<>();
+        for (int index : indices) {
+            String worker = getWorker(exprs.get(index));
+            shards.computeIfAbsent(worker, w -> new ArrayList<>()).add(index);
+        }
+        return shards;
+    }
+
+    // Rendezvous hashing, the worker with the highest score gets the expression.
+    // Removing a worker only moves the expressions that were sent to it.
+    String getWorker(String expr) {
+        String best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (String worker : workers) {
+            long score = mix(expr.hashCode() * 31L + worker.hashCode());
+            if (best == null || score > bestScore) {
+                best = worker;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // Spread bits of h (MurmurHash3 finalizer)
+    long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Expressions are sent in requests of at most MAX_REQUEST, one after
+    // the other, so no single request needs more than TIMEOUT
+    CompletableFuture<List<String>> send(String worker, List<String> exprs, List<Integer> indices) {
+        CompletableFuture<List<String>> results = CompletableFuture.completedFuture(new ArrayList<>());
+        for (int from = 0; from < indices.size(); from += MAX_REQUEST) {
+            List<Integer> part = indices.subList(from, Math.min(from + MAX_REQUEST, indices.size()));
+            results = results.thenCompose(done -> sendPart(worker, exprs, part, TIMEOUT)
+                    .thenApply(values -> {
+                        done.addAll(values);
+                        return done;
+                    }));
+        }
+        return results;
+    }
+
+    CompletableFuture<List<String>> sendPart(String worker, List<String> exprs, List<Integer> indices,
+                                             Duration timeout) {
+        StringBuilder body = new StringBuilder();
+        for (int index : indices) {
+            body.append(exprs.get(index)).append('\n');
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + worker + "/eval"))
+                .timeout(timeout)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> toResults(response, indices.size()));
+    }
+
+    // A small request, used before dropping a worker that failed
+    boolean isAlive(String worker) {
+        try {
+            sendPart(worker, List.of("1"), List.of(0), HEALTH_TIMEOUT).join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    List<String> toResults(HttpResponse<String> response, int expected) {
+        if (response.statusCode() != HTTP_OK) {
+            throw new IllegalStateException("HTTP " + response.statusCode());
+        }
+        List<String> results = response.body().isEmpty()
+                ? new ArrayList<>()
+                : Arrays.asList(response.body().split("\n"));
+        if (results.size() != expected) {
+            throw new IllegalStateException("Expected " + expected + " results, got " + results.size());
+        }
+        return results;
+    }
+
+    void collect(List<Integer> indices, List<String> values, String[] results) {
+        for (int i = 0; i < indices.size(); i++) {
+            results[indices.get(i)] = values.get(i);
+        }
+    }
+
+    // Wait until every worker answers, started processes need a moment
+    void awaitWorkers() throws IOException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!isReady()) {
+            if (System.nanoTime() > deadline) {
+                close();
+                throw new IOException(NO_WORKERS);
+            }
+            sleep(100);
+        }
+    }
+
+    boolean isReady() {
+        try {
+            for (String worker : workers) {
+                sendPart(worker, List.of("1"), List.of(0), TIMEOUT).join();
+            }
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    // ---------- Command line -----------------
+
+    void evalStdin() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        List<String> exprs = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            exprs.add(line);
+        }
+        for (String result : evalBatch(exprs)) {
+            out.println(result);
+        }
+    }
+
+    // Start maxWorkers local workers and measure throughput using 1, 2 ... of them
+    static void benchmark(int maxWorkers) throws IOException {
+        List<String> exprs = generate(200_000, 20_000);
+        try (CalcCoordinator all = startLocal(maxWorkers)) {
+            for (int n = 1; n <= maxWorkers; n++) {
+                CalcCoordinator coordinator = new CalcCoordinator(all.getWorkers().subList(0, n));
+                coordinator.evalBatch(exprs);  // Warm up JIT and caches
+                long start = System.nanoTime();
+                coordinator.evalBatch(exprs);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                out.printf("workers %2d: %10.0f expressions/s%n", n, exprs.size() / seconds);
+            }
+        }
+    }
+
+    // count expressions picked from a pool of distinct ones
+    static List<String> generate(int count, int distinct) {
+        Random random = new Random(42);
+        String[] pool = new String[distinct];
+        for (int i = 0; i < distinct; i++) {
+            pool[i] = random.nextInt(100) + " + " + random.nextInt(100) + " * (" + random.nextInt(100)
+                    + " - " + random.nextInt(100) + ") ^ 2";
+        }
+        List<String> exprs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            exprs.add(pool[random.nextInt(distinct)]);
+        }
+        return exprs;
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
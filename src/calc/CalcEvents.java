@@ -0,0 +1,73 @@
+package calc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ *   JDK Flight Recorder events for the Calculator
+ *
+ *   Record with e.g. java -XX:StartFlightRecording=filename=calc.jfr ...
+ *   and open the file in JDK Mission Control. When recording is off the
+ *   events are never committed and the fields are never computed.
+ */
+class CalcEvents {
+
+    // Fields shared by the parse, compile and evaluate stages
+    abstract static class Stage extends Event {
+        @Label("Expression Length")
+        int expressionLength;
+
+        @Label("Token Count")
+        int tokenCount;
+
+        @Label("Depth")
+        @Description("Maximum parenthesis nesting")
+        int depth;
+
+        @Label("Error")
+        @Description("Message of the exception if the stage failed")
+        String error;
+    }
+
+    @Name("calc.Parse")
+    @Label("Parse")
+    @Category("Calculator")
+    @Description("Tokenize an expression")
+    static class Parse extends Stage {
+    }
+
+    @Name("calc.Compile")
+    @Label("Compile")
+    @Category("Calculator")
+    @Description("Convert infix tokens to a postfix program")
+    static class Compile extends Stage {
+    }
+
+    @Name("calc.Evaluate")
+    @Label("Evaluate")
+    @Category("Calculator")
+    @Description("Evaluate a postfix program, or a whole streamed expression")
+    static class Evaluate extends Stage {
+    }
+
+    @Name("calc.Request")
+    @Label("Server Request")
+    @Category("Calculator")
+    @Description("A request to WebCalcServer")
+    static class Request extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("URI")
+        String uri;
+
+        @Label("Expression Length")
+        int expressionLength;
+
+        @Label("Explain")
+        boolean explain;
+    }
+}
@@ -1,6 +1,15 @@
 package calc;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 
 import static java.lang.Double.NaN;
 import static java.lang.Double.doubleToLongBits;
@@ -30,14 +39,122 @@ class Calculator {
     // Definition of operators
     final static String OPERATORS = "+-*/^";
 
+    // Subtrees smaller than this (in nodes) are evaluated on the current thread
+    final static int PARALLEL_THRESHOLD = 4096;
+
     // Method used in REPL
     double eval(String expr) {
         if (expr.length() == 0) {
             return NaN;
         }
+        List<String> tokens = parse(expr);
+        Stack<String> postfix = runStage(new CalcEvents.Compile(), expr, tokens, () -> infix2Postfix(tokens));
+        return runStage(new CalcEvents.Evaluate(), expr, tokens, () -> evalPostfix(postfix));
+    }
+
+    // Tokenize and record a Parse event
+    List<String> parse(String expr) {
+        CalcEvents.Parse event = new CalcEvents.Parse();
+        event.begin();
+        List<String> tokens = null;
+        try {
+            tokens = tokenize(expr);
+            return tokens;
+        } catch (RuntimeException e) {
+            event.error = e.getMessage();
+            throw e;
+        } finally {
+            commitStage(event, expr, tokens);
+        }
+    }
+
+    // Run a stage and record its event, also when the stage fails
+    <T> T runStage(CalcEvents.Stage event, String expr, List<String> tokens, Supplier<T> stage) {
+        event.begin();
+        try {
+            return stage.get();
+        } catch (RuntimeException e) {
+            event.error = e.getMessage();
+            throw e;
+        } finally {
+            commitStage(event, expr, tokens);
+        }
+    }
+
+    // Fields are only computed if the event is recorded
+    void commitStage(CalcEvents.Stage event, String expr, List<String> tokens) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.expressionLength = expr.length();
+            event.tokenCount = tokens == null ? 0 : tokens.size();
+            event.depth = tokens == null ? 0 : getDepth(tokens);
+            event.commit();
+        }
+    }
+
+    void commitStage(CalcEvents.Stage event, int length, int tokenCount, int depth) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.expressionLength = length;
+            event.tokenCount = tokenCount;
+            event.depth = depth;
+            event.commit();
+        }
+    }
+
+    // Maximum parenthesis nesting
+    int getDepth(List<String> tokens) {
+        int depth = 0;
+        int max = 0;
+        for (String token : tokens) {
+            if (token.equals("(")) {
+                depth++;
+                max = Math.max(max, depth);
+            } else if (token.equals(")")) {
+                depth--;
+            }
+        }
+        return max;
+    }
+
+    // ------  Explain -------------------
+
+    // Evaluate expr and describe what each stage did (used by REPL and WebCalcServer)
+    String explain(String expr) {
+
+        long start = System.nanoTime();
         List<String> tokens = tokenize(expr);
+        long tokenized = System.nanoTime();
         Stack<String> postfix = infix2Postfix(tokens);
-        return evalPostfix(postfix);
+        long compiled = System.nanoTime();
+        double result = postfix.empty() ? NaN : evalPostfix(postfix);
+        long evaluated = System.nanoTime();
+
+        int operators = countOperators(postfix);
+
+        return "Tokens (" + tokens.size() + "): " + String.join(" ", tokens) + "\n"
+                + "Postfix: " + String.join(" ", postfix) + "\n"
+                + "Steps: " + postfix.size() + " (" + (postfix.size() - operators) + " operands, "
+                + operators + " operators)\n"
+                + "Depth: " + getDepth(tokens) + "\n"
+                + "Tokenize: " + millis(tokenized - start) + " ms\n"
+                + "Infix2Postfix: " + millis(compiled - tokenized) + " ms\n"
+                + "Evaluate: " + millis(evaluated - compiled) + " ms\n"
+                + "Result: " + result;
+    }
+
+    int countOperators(List<String> postfix) {
+        int count = 0;
+        for (String token : postfix) {
+            if (!isNumeric(token)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
     }
 
     // ------  Evaluate RPN expression -------------------
@@ -69,6 +186,10 @@ class Calculator {
 
         }
 
+        if (operands.empty()) {
+            // Nothing but spaces or parentheses
+            throw new IllegalArgumentException(MISSING_OPERAND);
+        }
         return operands.pop();
     }
 
@@ -305,5 +426,431 @@ class Calculator {
         return tokens;
     }
 
+    // ---------- Streaming evaluation -----------------
+
+    // Evaluate an expression read from reader without holding it in memory.
+    // Accepts the same input as eval(String), only ' ' is skipped.
+    // Operators are applied as soon as precedence allows, so only the
+    // operator and operand stacks are kept (they grow with nesting depth).
+    // All stages run in one pass, so one Evaluate event covers them.
+    double eval(Reader reader) throws IOException {
+
+        CalcEvents.Evaluate evaluate = new CalcEvents.Evaluate();
+        evaluate.begin();
+
+        Reader in = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+        Stack<String> operatorStack = new Stack<>();
+        Stack<Double> operands = new Stack<>();
+        StringBuilder number = new StringBuilder();
+        int length = 0;
+        int tokenCount = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        try {
+            int c;
+            while ((c = in.read()) != -1) {
+
+                length++;
+                if (c >= '0' && c <= '9') {
+                    // Numeric
+
+                    if (number.length() == 0) {
+                        tokenCount++;
+                    }
+                    number.append((char) c);
+
+                } else if (c != ' ') {
+                    // Operator
+
+                    tokenCount++;
+                    depth += c == '(' ? 1 : c == ')' ? -1 : 0;
+                    maxDepth = Math.max(maxDepth, depth);
+                    pushNumber(operands, number);
+                    reduceStacks(operatorStack, operands, Character.toString((char) c));
+                }
+            }
+            pushNumber(operands, number);
+
+            while (!operatorStack.empty()) {
+
+                String operator = operatorStack.pop();
+                if (!operator.equals("(") && !operator.equals(")")) {
+                    reduce(operands, operator);
+                }
+            }
+
+            if (length == 0) {
+                return NaN;
+            }
+            if (operands.empty()) {
+                throw new IllegalArgumentException(MISSING_OPERAND);
+            }
+            return operands.pop();
+
+        } catch (IOException | RuntimeException e) {
+            evaluate.error = e.getMessage();
+            throw e;
+        } finally {
+            commitStage(evaluate, length, tokenCount, maxDepth);
+        }
+    }
+
+    double eval(ReadableByteChannel channel) throws IOException {
+        return eval(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    void pushNumber(Stack<Double> operands, StringBuilder number) {
+        if (number.length() > 0) {
+            operands.push(Double.parseDouble(number.toString()));
+            number.setLength(0);
+        }
+    }
+
+    void reduce(Stack<Double> operands, String operator) {
+
+        if (operands.size() < 2) {
+            throw new IllegalArgumentException(MISSING_OPERAND);
+        }
+
+        double d1 = operands.pop();
+        double d2 = operands.pop();
+        operands.push(applyOperator(operator, d1, d2));
+    }
+
+    // Same as fixStacks but operators are applied instead of added to postfix
+    void reduceStacks(Stack<String> operatorStack, Stack<Double> operands, String addingToken) {
+
+        while (true) {
+
+            if (operatorStack.empty()) {
+
+                operatorStack.push(addingToken);
+                break;
+            }
+
+            String lastOperator = operatorStack.peek();
+
+            if (getOperationByString(addingToken).priority == 4) {
+
+                if (addingToken.equals(")")) {
+
+                    if (lastOperator.equals("(")) {
+
+                        operatorStack.pop();
+                        break;
+                    }
+
+                    reduce(operands, operatorStack.pop());
+                } else {
+
+                    operatorStack.push(addingToken);
+                    break;
+                }
+
+            } else if (shouldPopLastOperator(lastOperator, addingToken)) {
+
+                reduce(operands, operatorStack.pop());
+            } else {
+
+                operatorStack.push(addingToken);
+                break;
+            }
+        }
+    }
+
+    // ---------- Parallel evaluation -----------------
+
+    // Evaluate very large expressions on the common ForkJoinPool.
+    // If reassociate is true chains of + and * may be regrouped, so
+    // floating point results can differ slightly from eval().
+    double evalParallel(String expr, boolean reassociate) {
+        return evalParallel(expr, reassociate, ForkJoinPool.commonPool());
+    }
+
+    double evalParallel(String expr, boolean reassociate, ForkJoinPool pool) {
+        if (expr.length() == 0) {
+            return NaN;
+        }
+        List<String> tokens = parse(expr);
+        Node tree = runStage(new CalcEvents.Compile(), expr, tokens,
+                () -> buildTree(infix2Postfix(tokens), reassociate));
+        return runStage(new CalcEvents.Evaluate(), expr, tokens, () -> evalTree(tree, pool));
+    }
+
+    public double evalTree(Node root, ForkJoinPool pool) {
+        try {
+            return pool.invoke(new EvalTask(root));
+        } catch (RuntimeException e) {
+            // Exceptions from other threads are wrapped, keep the original message
+            if (e.getCause() != null && e.getCause().getClass() == e.getClass()) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Build an expression tree from postfix. With reassociate, chains of the
+    // same associative operator are collected into one node (see Node).
+    public Node buildTree(Stack<String> postfix, boolean reassociate) {
+
+        Stack<Node> nodes = new Stack<>();
+
+        for (int i = 0; i < postfix.size(); i++) {
+
+            String token = postfix.get(i);
+
+            if (isOperand(token)) {
+                // Operand found, parsed when evaluated
+
+                nodes.push(new Node(token));
+                continue;
+            }
+
+            if (nodes.size() < 2) {
+                throw new IllegalArgumentException(MISSING_OPERAND);
+            }
+
+            if (!OPERATORS.contains(token)) {
+                // Where evalPostfix would fail in applyOperator
+                throw new RuntimeException(OP_NOT_FOUND);
+            }
+
+            Node right = nodes.pop();
+            Node left = nodes.pop();
+
+            if (reassociate && isAssociative(token)) {
+                nodes.push(joinChain(token, left, right));
+            } else {
+                nodes.push(new Node(token, left, right));
+            }
+        }
+
+        if (nodes.empty()) {
+            throw new IllegalArgumentException(MISSING_OPERAND);
+        }
+        return nodes.pop();
+    }
+
+    // Same answer as isNumeric for tokens from tokenize, but without
+    // parsing (and an exception for every operator) in the common cases
+    boolean isOperand(String token) {
+        char first = token.charAt(0);
+        if (token.length() == 1 && OPERATORS.indexOf(first) >= 0) {
+            return false;
+        }
+        if (first >= '0' && first <= '9') {
+            return true;
+        }
+        return isNumeric(token);
+    }
+
+    boolean isAssociative(String op) {
+        return op.equals("+") || op.equals("*");
+    }
+
+    Node joinChain(String op, Node left, Node right) {
+
+        if (!isChain(op, left) && !isChain(op, right)) {
+            Node chain = new Node(op, left);
+            addToChain(chain, right);
+            return chain;
+        }
+
+        // Add the smaller side to the larger chain, so nesting on either
+        // side (1+(1+(1+...))) doesn't copy chains over and over. Operands
+        // may change order, which reassociate already allows.
+        boolean intoLeft = isChain(op, left) && (!isChain(op, right) || left.chain.size() >= right.chain.size());
+        Node chain = intoLeft ? left : right;
+        addToChain(chain, intoLeft ? right : left);
+
+        return chain;
+    }
+
+    boolean isChain(String op, Node node) {
+        return node.chain != null && op.equals(node.token);
+    }
+
+    void addToChain(Node chain, Node node) {
+        if (isChain(chain.token, node)) {
+            chain.chain.addAll(node.chain);
+        } else {
+            chain.chain.add(node);
+        }
+        chain.size += node.size + 1;
+    }
+
+    /*
+     *  A node in the expression tree. Either a number (leaf), a binary
+     *  operator (left and right) or, when reassociating, a chain of one
+     *  associative operator applied to all nodes in chain. A chain is split
+     *  in halves when evaluated, which gives a balanced tree.
+     */
+    static class Node {
+        final String token;
+        Node left;
+        Node right;
+        List<Node> chain;
+        int size;
+
+        Node(String number) {
+            this.token = number;
+            this.size = 1;
+        }
+
+        Node(String op, Node left, Node right) {
+            this.token = op;
+            this.left = left;
+            this.right = right;
+            this.size = left.size + right.size + 1;
+        }
+
+        Node(String op, Node first) {
+            this.token = op;
+            this.chain = new ArrayList<>();
+            this.chain.add(first);
+            this.size = first.size;
+        }
+
+        boolean isLeaf() {
+            return left == null && chain == null;
+        }
+    }
+
+    // Plain recursive evaluation, only used for subtrees below PARALLEL_THRESHOLD
+    double evalSequential(Node node) {
+
+        if (node.isLeaf()) {
+            return Double.parseDouble(node.token);
+        }
+        if (node.chain != null) {
+            return foldChain(node, 0, node.chain.size());
+        }
+
+        return applyOperator(node.token, evalSequential(node.right), evalSequential(node.left));
+    }
+
+    double evalNode(Node node) {
+        if (node.size < PARALLEL_THRESHOLD) {
+            return evalSequential(node);
+        }
+        return new EvalTask(node).compute();
+    }
+
+    double foldChain(Node node, int from, int to) {
+
+        double result = evalNode(node.chain.get(from));
+
+        for (int i = from + 1; i < to; i++) {
+            result = applyOperator(node.token, evalNode(node.chain.get(i)), result);
+        }
+
+        return result;
+    }
+
+    class EvalTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        final Node root;
+
+        EvalTask(Node root) {
+            this.root = root;
+        }
+
+        @Override
+        protected Double compute() {
+
+            // Walk down long one sided paths (like 1-2-3-...) without recursion,
+            // evaluating the small side at once and applying it afterwards.
+            Stack<Node> path = new Stack<>();
+            Stack<Double> smallValues = new Stack<>();
+            Node node = root;
+
+            while (isSplittable(node) && !isBalanced(node)) {
+                Node small = node.left.size < node.right.size ? node.left : node.right;
+                path.push(node);
+                smallValues.push(evalSequential(small));
+                node = small == node.left ? node.right : node.left;
+            }
+
+            double result = computeNode(node);
+
+            while (!path.empty()) {
+                result = applyPathNode(path.pop(), smallValues.pop(), result);
+            }
+
+            return result;
+        }
+
+        boolean isSplittable(Node node) {
+            return node.size >= PARALLEL_THRESHOLD && node.left != null;
+        }
+
+        boolean isBalanced(Node node) {
+            return node.left.size >= PARALLEL_THRESHOLD && node.right.size >= PARALLEL_THRESHOLD;
+        }
+
+        double computeNode(Node node) {
+
+            if (node.chain != null) {
+                return new ChainTask(node, 0, node.chain.size()).compute();
+            }
+            if (!isSplittable(node)) {
+                return evalSequential(node);
+            }
+
+            EvalTask rightTask = new EvalTask(node.right);
+            rightTask.fork();
+            double leftValue = new EvalTask(node.left).compute();
+
+            return applyOperator(node.token, rightTask.join(), leftValue);
+        }
+
+        double applyPathNode(Node node, double smallValue, double bigValue) {
+
+            if (node.left.size < node.right.size) {
+                return applyOperator(node.token, bigValue, smallValue);
+            }
+            return applyOperator(node.token, smallValue, bigValue);
+        }
+    }
+
+    class ChainTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        final Node node;
+        final int from;
+        final int to;
+
+        ChainTask(Node node, int from, int to) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+
+            if (to - from < 2 || chainSize() < PARALLEL_THRESHOLD) {
+                return foldChain(node, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            ChainTask rightTask = new ChainTask(node, middle, to);
+            rightTask.fork();
+            double leftValue = new ChainTask(node, from, middle).compute();
+
+            return applyOperator(node.token, rightTask.join(), leftValue);
+        }
+
+        int chainSize() {
+            int size = 0;
+            for (int i = from; i < to && size < PARALLEL_THRESHOLD; i++) {
+                size += node.chain.get(i).size;
+            }
+            return size;
+        }
+    }
+
     // TODO Possibly more methods
 }
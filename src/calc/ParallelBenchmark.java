@@ -0,0 +1,106 @@
+package calc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.System.out;
+
+/*
+ *   Benchmark for parallel evaluation of very large expressions
+ *
+ *   Generates sums of products ("3 * 7 + 2 + 5 * 1 ...") with the given
+ *   number of tokens (default 10^5, 10^6 and 10^7) and evaluates them on
+ *   pools with 1, 2, 4 ... up to all available cores.
+ *
+ *   "tree" times evalTree() on a tree built beforehand, "total" times the
+ *   whole evalParallel() (tokenize, infix2Postfix and buildTree included,
+ *   run once). eval() is the sequential reference for the total.
+ *   The largest size needs a large heap, run with e.g. -Xmx4g
+ */
+class ParallelBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = {100_000, 1_000_000, 10_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        new ParallelBenchmark().run(sizes);
+    }
+
+    final int ROUNDS = 5;
+    final Calculator calculator = new Calculator();
+    final Random random = new Random(42);
+
+    void run(int[] sizes) {
+        out.println("Available cores: " + Runtime.getRuntime().availableProcessors());
+        for (int size : sizes) {
+            bench(size);
+        }
+    }
+
+    void bench(int size) {
+        List<String> tokens = generate(size);
+        String expr = String.join(" ", tokens);
+        Stack<String> postfix = calculator.infix2Postfix(tokens);
+        Calculator.Node tree = calculator.buildTree(postfix, true);
+        out.println("Tokens: " + size);
+        out.printf("  eval():     %8.2f ms%n", time(() -> calculator.eval(expr)));
+
+        double sequentialMillis = 0;
+        for (int parallelism : threadCounts()) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            double millis = bestOf(tree, pool);
+            double totalMillis = time(() -> calculator.evalParallel(expr, true, pool));
+            pool.shutdown();
+            if (parallelism == 1) {
+                sequentialMillis = millis;
+            }
+            out.printf("  threads %2d: tree %8.2f ms  speedup %.2f  total %8.2f ms%n",
+                    parallelism, millis, sequentialMillis / millis, totalMillis);
+        }
+    }
+
+    // 1, 2, 4 ... and always all available cores last
+    List<Integer> threadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int parallelism = 1; parallelism < cores; parallelism *= 2) {
+            counts.add(parallelism);
+        }
+        counts.add(cores);
+        return counts;
+    }
+
+    double bestOf(Calculator.Node tree, ForkJoinPool pool) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            calculator.evalTree(tree, pool);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    double time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    // A random sum of products, size is rounded down to an odd number of tokens
+    List<String> generate(int size) {
+        List<String> tokens = new ArrayList<>(size);
+        tokens.add(Integer.toString(1 + random.nextInt(9)));
+        for (int i = 2; i < size; i += 2) {
+            tokens.add(random.nextInt(3) == 0 ? "*" : "+");
+            tokens.add(Integer.toString(1 + random.nextInt(9)));
+        }
+        return tokens;
+    }
+}
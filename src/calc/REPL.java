@@ -21,10 +21,12 @@ class REPL {
 
     final Scanner scan = new Scanner(in);
     final Calculator calculator = new Calculator();
+    final String EXPLAIN = "explain ";
 
     void program() {
 
         out.println("Calculator v 1.0. To exit input bye");
+        out.println("Prefix an expression with explain to trace the evaluation");
         while (true) {
             out.print("> ");
             String input = scan.nextLine();
@@ -32,6 +34,10 @@ class REPL {
                 break;
             }
             try {
+                if (input.startsWith(EXPLAIN)) {
+                    out.println(calculator.explain(input.substring(EXPLAIN.length())));
+                    continue;
+                }
                 double result = calculator.eval(input);
                 out.println(result);
             }catch( Exception e){
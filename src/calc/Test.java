@@ -1,5 +1,12 @@
 package calc;
 
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static java.lang.System.out;
@@ -124,6 +131,76 @@ class Test {
             out.println(e.getMessage().equals(Calculator.MISSING_OPERATOR));
         }*/
 
+        out.println("Parallel evaluation:");
+        // Parallel evaluation ---------------------------
+        ep("1 + 10", 11);
+        ep("10 - 5 - 2", 3);
+        ep("4 ^ 2 ^ 2", 256);
+        ep("3 * (10 + 2)", 36);
+        ep("1 + 2 * 3 + 4 * 5 + 6", 33);
+        ep(chain("1", "+", 100_000), 100_000);
+        ep(chain("1", "-", 100_000), -99_998);
+        ep(nested("1", "+", 100_000), 100_000);
+        ep(nested("2", "*", 10) + " + (" + chain("1", "+", 10_000) + ") * 2", 21_024);
+        ep(chain("1", "^", 100_000) + " * 2", 2);
+        try {
+            ep(chain("1", "+", 10_000) + " / 0", 0);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.DIV_BY_ZERO));
+        }
+        try {
+            ep("1 + a", 0);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.MISSING_OPERAND));
+        }
+        try {
+            ep(chain("1", "+", 10_000) + " * 2 ^ a", 0);
+        } catch (RuntimeException e) {
+            out.println(e.getMessage().equals(Calculator.OP_NOT_FOUND));
+        }
+
+        out.println("Streaming evaluation:");
+        // Streaming evaluation --------------------------
+        es("1 + 10", 11);
+        es("10 - 5 - 2", 3);
+        es("4 ^ 2 ^ 2", 256);
+        es("3 * 2 ^ 2", 12);
+        es(" 4 - 2 - 1 ^ 2 ", 1);
+        es(" ((((1 + 1))) * 2)", 4);
+        es(chain("1", "+", 100_000), 100_000);
+        try {
+            es("1 + 2 + ", 0);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.MISSING_OPERAND));
+        }
+        try {
+            es("1\t+2", 0);  // Only spaces are skipped, like tokenize
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.MISSING_OPERAND));
+        }
+        try {
+            es("()", 0);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.MISSING_OPERAND));
+        }
+        try {
+            es("(1 / 0) ", 0);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage().equals(Calculator.DIV_BY_ZERO));
+        }
+
+        out.println("Explain:");
+        // Explain ---------------------------------------
+        String explanation = calculator.explain("(1 + 2) * 3 ^ 2");
+        out.println(explanation.contains("Postfix: 1 2 + 3 2 ^ *"));
+        out.println(explanation.contains("Steps: 7 (4 operands, 3 operators)"));
+        out.println(explanation.contains("Depth: 1"));
+        out.println(explanation.contains("Result: 27.0"));
+
+        out.println("Coordinator:");
+        // Coordinator with workers on localhost ----------
+        coordinator();
+
     }
 
 
@@ -155,4 +232,87 @@ class Test {
         out.println(result == expected);
     }
 
+    // Parallel evaluation, with and without reassociation
+    void ep(String infix, double expected) {
+        double result = calculator.evalParallel(infix, false);
+        double reassociated = calculator.evalParallel(infix, true);
+        out.println("Result: " + result);
+        out.println(result == expected && reassociated == expected);
+    }
+
+    // Streaming evaluation from a Reader and a channel
+    void es(String infix, double expected) {
+        try {
+            double result = calculator.eval(new StringReader(infix));
+            byte[] bytes = infix.getBytes(StandardCharsets.UTF_8);
+            double fromChannel = calculator.eval(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            out.println("Result: " + result);
+            out.println(result == expected && fromChannel == expected);
+        } catch (IOException e) {
+            out.println(false);
+        }
+    }
+
+    // Three workers, one gets a bad expression and one is stopped half way
+    void coordinator() {
+        List<HttpServer> servers = new ArrayList<>();
+        try {
+            List<String> workers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                HttpServer server = new WebCalcServer().start(0);
+                servers.add(server);
+                workers.add("localhost:" + server.getAddress().getPort());
+            }
+            CalcCoordinator coordinator = new CalcCoordinator(workers);
+            List<String> exprs = Arrays.asList("1 + 10", "3 * (10 + 2)", "4 ^ 2 ^ 2", "1 / 0", "20 / 2 / 2");
+            List<String> expected = Arrays.asList("11.0", "36.0", "256.0", "Error: " + Calculator.DIV_BY_ZERO, "5.0");
+            out.println(coordinator.evalBatch(exprs).equals(expected));
+
+            // A line break is an error for that expression only, no worker is dropped
+            List<String> bad = Arrays.asList("1 + 1", "2 +\r3", "4 * 4");
+            List<String> badExpected = Arrays.asList("2.0", "Error: " + CalcCoordinator.LINE_BREAK, "16.0");
+            out.println(coordinator.evalBatch(bad).equals(badExpected));
+            out.println(coordinator.getWorkers().size() == 3);
+
+            // Stop the worker that owns the first expression
+            String owner = coordinator.getWorker(exprs.get(0));
+            servers.get(workers.indexOf(owner)).stop(0);
+            out.println(coordinator.evalBatch(exprs).equals(expected));
+            out.println(!coordinator.getWorkers().contains(owner) && coordinator.getWorkers().size() == 2);
+
+            // More expressions than fit in one request to a worker
+            List<String> many = new ArrayList<>();
+            List<String> manyExpected = new ArrayList<>();
+            for (int i = 0; i < 3 * CalcCoordinator.MAX_REQUEST; i++) {
+                many.add(i + " + 1");
+                manyExpected.add((i + 1) + ".0");
+            }
+            out.println(coordinator.evalBatch(many).equals(manyExpected));
+        } catch (IOException e) {
+            out.println(false);
+        } finally {
+            for (HttpServer server : servers) {
+                server.stop(0);
+            }
+        }
+    }
+
+    // Right nested, like "1 + (1 + (1 + 1))"
+    String nested(String operand, String op, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < n; i++) {
+            sb.append(operand).append(' ').append(op).append(" (");
+        }
+        sb.append(operand);
+        for (int i = 1; i < n; i++) {
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    // An expression with the same operand n times, like "1 + 1 + 1"
+    String chain(String operand, String op, int n) {
+        return String.join(" " + op + " ", Collections.nCopies(n, operand));
+    }
+
 }
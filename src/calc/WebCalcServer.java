@@ -4,14 +4,22 @@ import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
 
 import static java.lang.System.out;
 import static java.net.HttpURLConnection.HTTP_OK;
@@ -21,7 +29,8 @@ import static java.net.HttpURLConnection.HTTP_OK;
         A Web server for the Calculator
 
         A Server to be able to do calculation on the Web
-        Start this and visit localhost:8080
+        Start this and visit localhost:8080 (or give another port as argument)
+        (or localhost:8080/?explain=true to trace each evaluation)
 
         **** NOTHING TO DO HERE ****
 
@@ -29,55 +38,153 @@ import static java.net.HttpURLConnection.HTTP_OK;
 public class WebCalcServer {
 
     public static void main(String[] args) throws IOException {
-        new WebCalcServer().run();
+        WebCalcServer server = new WebCalcServer();
+        server.start(args.length > 0 ? Integer.parseInt(args[0]) : server.DEFAULT_PORT);
     }
 
     public final int DEFAULT_PORT = 8080;
     public final String HOME_URL = "/";
+    public final String EXPLAIN_URL = "/?explain=true";
+    public final String BATCH_URL = "/eval";
+    public final int CACHE_SIZE = 10_000;
     private final Calculator calc = new Calculator();
 
-    private void run() throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(DEFAULT_PORT), 0);
+    // Results of recent batch expressions, least recently used are dropped
+    private final Map<String, String> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    // Port 0 picks a free port, see the returned server for the actual one
+    HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
         HttpContext context = server.createContext(HOME_URL);
         context.setHandler(this::handleRequest);
+        server.createContext(BATCH_URL).setHandler(this::handleBatch);
+        // Several handler threads, so a worker still answers during a long batch
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
         server.start();
         out.println("Server started. Visit localhost:" + server.getAddress().getPort());
+        return server;
     }
 
     // Main method to handle HTTP requests
     private void handleRequest(HttpExchange exchange) {
+        CalcEvents.Request event = new CalcEvents.Request();
+        event.begin();
+        boolean explain = isExplain(exchange.getRequestURI());
+        String expr = "";
         try {
             out.println(exchange.getRequestMethod());
             out.println(exchange.getRequestURI());
             if (exchange.getRequestMethod().equals("GET")) {
-                String page = getPage(Double.NaN);
+                String page = getPage(Double.NaN, explain);
                 sendResponse(exchange, page);
             } else if (exchange.getRequestMethod().equals("POST")) {
                 Scanner sc = new Scanner(exchange.getRequestBody());
                 String args = sc.nextLine();
                 // This is "Expression=1+2 ..."
-                String expr = args.split("=")[1];
+                expr = args.split("=")[1];
                 expr = URLDecoder.decode(expr, "UTF-8");
-                double result = calc.eval(expr);
-                out.println(expr + " = " + result);
-                sendResponse(exchange, getPage(result));
+                if (explain) {
+                    String explanation = calc.explain(expr);
+                    out.println(explanation);
+                    sendResponse(exchange, getExplainPage(explanation));
+                } else {
+                    double result = calc.eval(expr);
+                    out.println(expr + " = " + result);
+                    sendResponse(exchange, getPage(result, false));
+                }
             } else {
                 sendResponse(exchange, "En Error occurred");
             }
         } catch (IOException ioe) {
             out.println("An exception occurred " + ioe.getMessage());
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = exchange.getRequestMethod();
+                event.uri = exchange.getRequestURI().toString();
+                event.expressionLength = expr.length();
+                event.explain = explain;
+                event.commit();
+            }
+        }
+    }
+
+    // Batch requests (used by CalcCoordinator): one expression per line in,
+    // one result or error message per line out
+    private void handleBatch(HttpExchange exchange) {
+        CalcEvents.Request event = new CalcEvents.Request();
+        event.begin();
+        int length = 0;
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            String expr;
+            while ((expr = reader.readLine()) != null) {
+                length += expr.length();
+                sb.append(cache.computeIfAbsent(expr, this::evalToString)).append('\n');
+            }
+            sendResponse(exchange, sb.toString());
+        } catch (IOException ioe) {
+            out.println("An exception occurred " + ioe.getMessage());
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = exchange.getRequestMethod();
+                event.uri = exchange.getRequestURI().toString();
+                event.expressionLength = length;
+                event.commit();
+            }
+        }
+    }
+
+    private String evalToString(String expr) {
+        try {
+            return Double.toString(calc.eval(expr));
+        } catch (RuntimeException e) {
+            return "Error: " + e.getMessage();
         }
     }
 
     // ---------- Helper Methods ----------------
 
-    private String getPage(double result) {
+    // True for "/?explain" and "/?explain=true"
+    private boolean isExplain(URI uri) {
+        String query = uri.getQuery();
+        if (query == null) {
+            return false;
+        }
+        List<String> params = Arrays.asList(query.split("&"));
+        return params.contains("explain") || params.contains("explain=true");
+    }
+
+    private String getPage(double result, boolean explain) {
+        return getPageBuilder(explain)
+                .addParagraph("Result = " + result)
+                .toString();
+    }
+
+    private String getExplainPage(String explanation) {
+        return getPageBuilder(true)
+                .addPre(explanation)
+                .toString();
+    }
+
+    private PageBuilder getPageBuilder(boolean explain) {
         PageBuilder pb = new PageBuilder();
         return pb.addTitle("Welcome to WebCalc")
                 .addH1("Welcome to WebCalc")
-                .addForm("/", "Enter expression", Arrays.asList("Expression"))
-                .addParagraph("Result = " + result)
-                .toString();
+                .addForm(explain ? EXPLAIN_URL : HOME_URL, "Enter expression", Arrays.asList("Expression"));
     }
 
     private void sendResponse(HttpExchange exchange, String response) throws IOException {
@@ -108,6 +215,11 @@ public class WebCalcServer {
             return this;
         }
 
+        PageBuilder addPre(String text) {
+            body.add("<pre>" + text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;") + "</pre>");
+            return this;
+        }
+
         PageBuilder addForm(String action, String legend, List<String> names) {
             StringBuilder sb = new StringBuilder();
             sb.append("<form action=\"").append(action)